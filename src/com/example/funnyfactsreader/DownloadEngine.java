@@ -0,0 +1,441 @@
+package com.example.funnyfactsreader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+import android.view.View;
+import android.widget.ImageView;
+
+/**
+ * DownloadEngine
+ *
+ * Process wide image download engine. Its download threads, http client with
+ * its warm connection pool and in flight downloads outlive the Activity and
+ * its adapter: lifecycle transitions only pause and resume taking new requests
+ * and the engine is shut down only when the process is trimmed.
+ *
+ * @author eyali
+ *
+ */
+public class DownloadEngine {
+
+    protected static final String TAG = "DownloadEngine";
+    protected static final int CONNECTION_TIMEOUT = 10000; // 10 seconds
+    protected static final int SOCKET_TIMEOUT = 60000; // 60 seconds
+    protected static final int MAX_DOWNLOADERS = 6;
+
+    private static DownloadEngine s_instance = null;
+
+    private final LinkedBlockingDeque<Pair<ImageView, FunnyFactsItem>> m_downloads = new LinkedBlockingDeque<Pair<ImageView, FunnyFactsItem>>();
+    private final ConcurrentLinkedQueue<HttpGet> m_requests = new ConcurrentLinkedQueue<HttpGet>();
+    private final DownloadThrottle m_throttle = new DownloadThrottle(MAX_DOWNLOADERS);
+    private final Handler m_uiHandler = new Handler(Looper.getMainLooper());
+    private final Object m_pauseLock = new Object();
+    private final Downloader[] m_downloadThreads = new Downloader[MAX_DOWNLOADERS];
+    private volatile boolean m_paused = false;
+    private volatile boolean m_running = true;
+
+    /**
+     * getInstance - get the process wide engine creating and starting it if
+     * needed
+     *
+     * @param context
+     *            - any context, only its application context is retained
+     */
+    public static synchronized DownloadEngine getInstance(Context context) {
+        if (s_instance == null) {
+            s_instance = new DownloadEngine(context.getApplicationContext());
+        }
+        return s_instance;
+    }
+
+    /**
+     * peekInstance - get the process wide engine without creating it
+     *
+     * @return the engine or null if not created or shut down
+     */
+    public static synchronized DownloadEngine peekInstance() {
+        return s_instance;
+    }
+
+    /**
+     * shutdown - stop the process wide engine if any releasing its threads and
+     * connections. A later call to getInstance creates a new engine.
+     */
+    public static synchronized void shutdown() {
+        if (s_instance != null) {
+            s_instance.close();
+            s_instance = null;
+        }
+    }
+
+    private DownloadEngine(Context context) {
+        final HttpClient client = createClient(context);
+        final AtomicInteger users = new AtomicInteger(MAX_DOWNLOADERS);
+        for (int i = 0; i < MAX_DOWNLOADERS; i++) {
+            m_downloadThreads[i] = new Downloader("Downloader-" + i, client, users);
+            m_downloadThreads[i].start();
+            Log.d(TAG, "Start thread " + m_downloadThreads[i].getName());
+        }
+    }
+
+    /**
+     * createClient - create the http client shared by the downloaders. Same
+     * setup as AndroidHttpClient but its pool allows a connection per
+     * downloader to the same host, otherwise any concurrency above the default
+     * of 2 per host would only wait for the pool and the throttle would measure
+     * the pool instead of the network.
+     *
+     * @param context
+     *            - the context for the SSL session cache
+     */
+    private static HttpClient createClient(Context context) {
+        final HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setStaleCheckingEnabled(params, false);
+        HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+        HttpConnectionParams.setSocketBufferSize(params, 8192);
+        HttpClientParams.setRedirecting(params, false);
+        HttpProtocolParams.setUserAgent(params, "FunnyFactsReader");
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_DOWNLOADERS));
+        ConnManagerParams.setMaxTotalConnections(params, MAX_DOWNLOADERS);
+
+        final SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLCertificateSocketFactory.getHttpSocketFactory(SOCKET_TIMEOUT, new SSLSessionCache(context)), 443));
+
+        return new DefaultHttpClient(new ThreadSafeClientConnManager(params, schemeRegistry), params);
+    }
+
+    /**
+     * enqueue - add a download request for the image of the FunnyFactsItem
+     *
+     * @param view
+     *            - the ImageView to load the image into
+     * @param item
+     *            - FunnyFactsItem with the image data to load
+     */
+    public void enqueue(ImageView view, FunnyFactsItem item) {
+        m_downloads.add(new Pair<ImageView, FunnyFactsItem>(view, item));
+    }
+
+    /**
+     * clear - drop all pending download requests. In flight downloads are left
+     * to complete rather than aborted as aborting closes their connections.
+     */
+    public void clear() {
+        // let dropped requests be requested again on demand
+        Pair<ImageView, FunnyFactsItem> entry;
+        while ((entry = m_downloads.poll()) != null) {
+            entry.second.imageRequested = false;
+        }
+    }
+
+    /**
+     * pause - stop taking new download requests, in flight downloads complete
+     */
+    public void pause() {
+        m_paused = true;
+        Log.d(TAG, "Downloads paused");
+    }
+
+    /**
+     * resume - resume taking download requests
+     */
+    public void resume() {
+        synchronized (m_pauseLock) {
+            m_paused = false;
+            m_pauseLock.notifyAll();
+        }
+        Log.d(TAG, "Downloads resumed");
+    }
+
+    /**
+     * getThrottle - diagnostics of the adaptive download concurrency: current
+     * limit, downloads in flight and last measured latency and throughput
+     */
+    public DownloadThrottle getThrottle() {
+        return m_throttle;
+    }
+
+    private void close() {
+        m_running = false;
+        // let pending requests be requested again on demand from a new engine
+        for (Pair<ImageView, FunnyFactsItem> entry : m_downloads) {
+            entry.second.imageRequested = false;
+        }
+        m_downloads.clear();
+        // abort current requests if any
+        for (HttpGet getRequest : m_requests) {
+            getRequest.abort();
+        }
+        for (Downloader downloader : m_downloadThreads) {
+            downloader.interrupt();
+            Log.d(TAG, "Interrupt thread " + downloader.getName());
+        }
+    }
+
+    private void waitWhilePaused() throws InterruptedException {
+        synchronized (m_pauseLock) {
+            while (m_paused) {
+                m_pauseLock.wait();
+            }
+        }
+    }
+
+    /**
+     * download - perform a single image download request and update its target
+     * ImageView, reporting the measurements to the download throttle and
+     * releasing its begun slot
+     *
+     * @param client
+     *            - the http client to execute the request with
+     * @param entry
+     *            - the download request with target ImageView and FunnyFactsItem
+     */
+    private void download(HttpClient client, Pair<ImageView, FunnyFactsItem> entry) {
+        final ImageView view = entry.first;
+        final FunnyFactsItem item = entry.second;
+        HttpGet getRequest = null;
+        long startTime = SystemClock.elapsedRealtime();
+        // latency stays negative if the request says nothing about the network
+        long latency = -1;
+        long bytes = 0;
+        boolean failed = false;
+        try {
+            Log.d(TAG, "Downloading image from url: " + item.imageUrl);
+
+            // create GET request for image Url
+            getRequest = new HttpGet(item.imageUrl);
+            m_requests.add(getRequest);
+
+            // set connection timeout as default behaviour is too slow to respond to errors
+            HttpParams params = getRequest.getParams();
+            HttpConnectionParams.setConnectionTimeout(params, CONNECTION_TIMEOUT);
+
+            // perform request
+            startTime = SystemClock.elapsedRealtime();
+            HttpResponse response = client.execute(getRequest);
+            latency = SystemClock.elapsedRealtime() - startTime;
+
+            // check returned status code
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != HttpStatus.SC_OK) {
+                // release the connection back to the pool shared for the process lifetime
+                if (response.getEntity() != null) {
+                    response.getEntity().consumeContent();
+                }
+                return;
+            }
+            Log.d(TAG, "Download successful");
+
+            // check returned body
+            final HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                CountingInputStream inputStream = null;
+                try {
+                    // getting contents from the stream
+                    inputStream = new CountingInputStream(entity.getContent());
+
+                    // decoding stream data into image Bitmap
+                    item.image = BitmapFactory.decodeStream(inputStream);
+
+                    // updating target ImageView ensuring it was not recycled
+                    String tagImageUrl = ((FunnyFactsItem) view.getTag()).imageUrl;
+                    if ((tagImageUrl != null) && tagImageUrl.equals(item.imageUrl)) {
+                        m_uiHandler.post(new Runnable() {
+
+                            @Override
+                            public void run() {
+                                view.setImageBitmap(item.image);
+                                view.setVisibility(View.VISIBLE);
+                                view.invalidate();
+                            }
+                        });
+                    }
+                } finally {
+                    if (inputStream != null) {
+                        bytes = inputStream.getCount();
+                        inputStream.close();
+                    }
+                    entity.consumeContent();
+                }
+            }
+        } catch (IllegalArgumentException iae) {
+            // malformed url then ignore this image
+            Log.d(TAG, "Image Url is faulty: " + iae.toString());
+        } catch (UnknownHostException uhe) {
+            // assume transient failure so clear request flag to allow later load request on demand
+            item.imageRequested = false;
+            Log.d(TAG, "Failed to download with exception: " + uhe.toString());
+        } catch (Exception e) {
+            if (getRequest != null && getRequest.isAborted()) {
+                // if current request has aborted by shutdown then clear request flag to allow later
+                // load request on demand
+                item.imageRequested = false;
+                latency = -1;
+                Log.d(TAG, "Download aborted");
+            } else if (e instanceof InterruptedIOException || e instanceof SocketException) {
+                // assume transient timeout or connection reset so clear request flag to allow later
+                // load request on demand and report it as congestion
+                item.imageRequested = false;
+                latency = SystemClock.elapsedRealtime() - startTime;
+                failed = true;
+                Log.d(TAG, "Failed to download with exception: " + e.toString());
+            } else {
+                // assume this is a permanent exception so ignore this image
+                Log.d(TAG, "Failed to download with exception: " + e.toString());
+            }
+        } finally {
+            if (getRequest != null) {
+                m_requests.remove(getRequest);
+            }
+            if (latency >= 0) {
+                m_throttle.release(latency, bytes, failed);
+            } else {
+                m_throttle.release();
+            }
+        }
+    }
+
+    /**
+     * Downloader
+     *
+     * Download thread taking requests from the queue while the engine is not
+     * paused and a slot is available in the download throttle. All downloaders
+     * share one http client which is closed by the last one to finish.
+     */
+    private class Downloader extends Thread {
+
+        private final HttpClient m_client;
+        private final AtomicInteger m_users;
+
+        public Downloader(String name, HttpClient client, AtomicInteger users) {
+            super(name);
+            m_client = client;
+            m_users = users;
+        }
+
+        @Override
+        public void run() {
+            Log.d(TAG, "Thread " + getName() + " starting");
+            try {
+                while (m_running) {
+                    waitWhilePaused();
+                    // take a slot before the request so pending requests stay in the queue where clear() drops them
+                    m_throttle.acquire();
+                    if (m_paused) {
+                        // paused while waiting for a slot so give it back and wait for resumption
+                        m_throttle.cancel();
+                        continue;
+                    }
+                    final Pair<ImageView, FunnyFactsItem> entry;
+                    try {
+                        entry = m_downloads.take();
+                    } catch (InterruptedException ie) {
+                        m_throttle.cancel();
+                        throw ie;
+                    }
+                    if (!m_running) {
+                        // shut down while waiting for a request so let it be requested again from a new engine
+                        entry.second.imageRequested = false;
+                        m_throttle.cancel();
+                        break;
+                    }
+                    if (m_paused) {
+                        // paused while waiting for a request so keep it first in line for resumption
+                        m_downloads.addFirst(entry);
+                        m_throttle.cancel();
+                        continue;
+                    }
+                    m_throttle.begin();
+                    download(m_client, entry);
+                }
+            } catch (InterruptedException ie) {
+                // engine shut down
+            } finally {
+                if (m_users.decrementAndGet() == 0) {
+                    m_client.getConnectionManager().shutdown();
+                }
+                Log.d(TAG, "Thread " + getName() + " finished");
+            }
+        }
+    }
+
+    /**
+     * CountingInputStream
+     *
+     * Counts the bytes read through it to measure download throughput.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long m_count = 0;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public long getCount() {
+            return m_count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                m_count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            final int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                m_count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            final long skipped = super.skip(count);
+            m_count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.funnyfactsreader;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * DownloadThrottle
+ *
+ * Limits the number of concurrent image downloads and adapts the limit to the
+ * measured latency and throughput of the network (AIMD): the limit grows by one
+ * after every window of downloads that did not show congestion, and is halved
+ * when latency rises without a gain in throughput or when downloads time out.
+ *
+ * @author eyali
+ *
+ */
+public class DownloadThrottle {
+
+    protected static final String TAG = "DownloadThrottle";
+    public static final int MIN_LIMIT = 1;
+    public static final int INITIAL_LIMIT = 2;
+    // latency growth over the previous window considered as congestion
+    private static final float LATENCY_TOLERANCE = 1.5f;
+    // throughput growth over the previous window considered as a real gain
+    private static final float THROUGHPUT_GAIN = 1.1f;
+    private static final int MIN_WINDOW_SAMPLES = 2;
+
+    private final int m_maxLimit;
+    private int m_limit = INITIAL_LIMIT;
+    // slots taken, including by downloaders still waiting for a request
+    private int m_slots = 0;
+    // downloads actually running
+    private int m_active = 0;
+
+    // current measurement window
+    private int m_windowSamples = 0;
+    private int m_windowFailures = 0;
+    private long m_windowBytes = 0;
+    private long m_windowLatency = 0;
+    private long m_windowBusy = 0;
+    private long m_busySince = 0;
+
+    // last closed measurement window
+    private long m_latency = 0;
+    private long m_throughput = 0;
+
+    /**
+     * DownloadThrottle
+     *
+     * @param maxLimit
+     *            - upper bound of the concurrency limit, usually the number of
+     *            download threads
+     */
+    public DownloadThrottle(int maxLimit) {
+        m_maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        m_limit = Math.min(INITIAL_LIMIT, m_maxLimit);
+    }
+
+    /**
+     * acquire - wait until a download slot is available within the current
+     * limit and take it. The slot does not count as in flight until begin().
+     *
+     * @throws InterruptedException
+     *             - if the waiting thread was interrupted
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (m_slots >= m_limit) {
+            wait();
+        }
+        m_slots++;
+    }
+
+    /**
+     * begin - mark the download of an acquired slot as running, from then on
+     * the time counts as busy for throughput
+     */
+    public synchronized void begin() {
+        if (m_active == 0) {
+            m_busySince = SystemClock.elapsedRealtime();
+        }
+        m_active++;
+    }
+
+    /**
+     * release - give back a download slot and record its measurements
+     *
+     * @param latency
+     *            - milliseconds from issuing the request to receiving the
+     *            response
+     * @param bytes
+     *            - number of body bytes transferred
+     * @param failed
+     *            - true if the download failed on a timeout or network error
+     */
+    public synchronized void release(long latency, long bytes, boolean failed) {
+        endDownload();
+        m_slots--;
+        m_windowSamples++;
+        m_windowLatency += latency;
+        m_windowBytes += bytes;
+        if (failed) {
+            m_windowFailures++;
+        }
+        if (m_windowSamples >= Math.max(m_limit, MIN_WINDOW_SAMPLES)) {
+            closeWindow();
+        }
+        notifyAll();
+    }
+
+    /**
+     * release - give back the slot of a begun download without recording
+     * measurements, used for aborted or invalid requests which say nothing
+     * about the network
+     */
+    public synchronized void release() {
+        endDownload();
+        m_slots--;
+        notifyAll();
+    }
+
+    /**
+     * cancel - give back an acquired slot whose download never began
+     */
+    public synchronized void cancel() {
+        m_slots--;
+        notifyAll();
+    }
+
+    private void endDownload() {
+        m_active--;
+        if (m_active == 0) {
+            m_windowBusy += SystemClock.elapsedRealtime() - m_busySince;
+        }
+    }
+
+    private void closeWindow() {
+        // only count time with downloads in flight so idle periods do not look like slow throughput
+        long busy = m_windowBusy;
+        if (m_active > 0) {
+            final long now = SystemClock.elapsedRealtime();
+            busy += now - m_busySince;
+            m_busySince = now;
+        }
+        final long latency = m_windowLatency / m_windowSamples;
+        final long throughput = m_windowBytes * 1000 / Math.max(1, busy);
+
+        final int previousLimit = m_limit;
+        if (m_windowFailures > 0) {
+            // timeouts and network errors are the strongest congestion signal
+            m_limit = Math.max(MIN_LIMIT, m_limit / 2);
+        } else if (m_latency > 0 && latency > m_latency * LATENCY_TOLERANCE && throughput <= m_throughput * THROUGHPUT_GAIN) {
+            // more waiting with no more data means the link is saturated
+            m_limit = Math.max(MIN_LIMIT, m_limit / 2);
+        } else {
+            m_limit = Math.min(m_maxLimit, m_limit + 1);
+        }
+        if (m_limit != previousLimit) {
+            Log.d(TAG, "Concurrency limit " + previousLimit + " -> " + m_limit + " (latency " + latency + " ms, throughput " + throughput + " B/s)");
+        }
+
+        m_latency = latency;
+        m_throughput = throughput;
+        m_windowSamples = 0;
+        m_windowFailures = 0;
+        m_windowBytes = 0;
+        m_windowLatency = 0;
+        m_windowBusy = 0;
+    }
+
+    /**
+     * getLimit - current number of downloads allowed in flight
+     */
+    public synchronized int getLimit() {
+        return m_limit;
+    }
+
+    /**
+     * getActive - number of downloads currently in flight
+     */
+    public synchronized int getActive() {
+        return m_active;
+    }
+
+    /**
+     * getLatency - average request latency in milliseconds of the last
+     * measurement window
+     */
+    public synchronized long getLatency() {
+        return m_latency;
+    }
+
+    /**
+     * getThroughput - aggregate throughput in bytes per second of the last
+     * measurement window
+     */
+    public synchronized long getThroughput() {
+        return m_throughput;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DownloadThrottle[limit=" + m_limit + ", active=" + m_active + ", latency=" + m_latency + "ms, throughput=" + m_throughput + "B/s]";
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.funnyfactsreader;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.Log;
+
+/**
+ * FeedLoader
+ *
+ * Process wide loader of the Json feed. The load can be started as soon as the
+ * process starts and an Activity attaches to it later: the rows read so far are
+ * replayed and the following ones are delivered as they are read. A result is
+ * delivered to a single attached Activity, a later attach starts a fresh load.
+ *
+ * All methods must be called on the UI thread.
+ *
+ * @author eyali
+ *
+ */
+public class FeedLoader {
+
+    protected static final String TAG = "FeedLoader";
+    protected static final long MAX_RESULT_AGE = 60000; // 1 minute
+
+    private static FeedLoader s_instance = null;
+
+    private final String m_url;
+    private final Handler m_uiHandler = new Handler(Looper.getMainLooper());
+    private FeedTask m_task = null;
+    private OnFeedLoad m_listener = null;
+
+    // state of the current load
+    private String m_title = null;
+    private final ArrayList<FunnyFactsItem> m_items = new ArrayList<FunnyFactsItem>();
+    private boolean m_finished = false;
+    private long m_finishedTime = 0;
+    private Integer m_error = null;
+    private boolean m_consumed = false;
+
+    /**
+     * getInstance - get the process wide loader creating it if needed
+     *
+     * @param context
+     *            - any context, used to resolve the feed url
+     */
+    public static FeedLoader getInstance(Context context) {
+        if (s_instance == null) {
+            s_instance = new FeedLoader(context.getApplicationContext());
+        }
+        return s_instance;
+    }
+
+    private FeedLoader(Context context) {
+        m_url = context.getString(R.string.json_url);
+    }
+
+    /**
+     * load - start a fresh load of the feed cancelling the current one if any
+     */
+    public void load() {
+        if (m_task != null) {
+            m_task.cancel(true);
+        }
+        m_title = null;
+        m_items.clear();
+        m_finished = false;
+        m_error = null;
+        m_consumed = false;
+        m_task = new FeedTask();
+        m_task.execute();
+    }
+
+    /**
+     * attach - attach a listener to the load in flight or to its result if
+     * not yet delivered, replaying what was read so far
+     *
+     * @param listener
+     *            - the listener to attach replacing the current one
+     * @return false if there is no load to attach to or its undelivered result
+     *         is too old, and a fresh one should be started
+     */
+    public boolean attach(OnFeedLoad listener) {
+        if (m_task == null || m_consumed) {
+            return false;
+        }
+        if (m_finished && SystemClock.elapsedRealtime() - m_finishedTime > MAX_RESULT_AGE) {
+            // result left undelivered in a cached process is stale so drop it
+            m_consumed = true;
+            m_title = null;
+            m_items.clear();
+            return false;
+        }
+        m_listener = listener;
+        if (m_title != null) {
+            m_listener.onTitle(m_title);
+        }
+        for (FunnyFactsItem item : m_items) {
+            // a previous Activity may have requested the image into its now dead views so request it again
+            if (item.image == null) {
+                item.imageRequested = false;
+            }
+            m_listener.onItem(item);
+        }
+        if (m_finished) {
+            consume();
+        }
+        return true;
+    }
+
+    /**
+     * consume - deliver the result to the attached listener and release the
+     * rows as a delivered result is never replayed
+     */
+    private void consume() {
+        m_consumed = true;
+        m_title = null;
+        m_items.clear();
+        m_listener.onFinished(m_error);
+    }
+
+    /**
+     * detach - detach the listener if attached, the load carries on
+     *
+     * @param listener
+     *            - the listener to detach
+     */
+    public void detach(OnFeedLoad listener) {
+        if (m_listener == listener) {
+            m_listener = null;
+        }
+    }
+
+    /**
+     * FeedTask
+     *
+     * Fetches and parses the Json file posting the title and rows to the UI
+     * thread as they are read.
+     */
+    private class FeedTask extends AsyncTask<Void, Void, Integer> {
+
+        @Override
+        protected void onPreExecute() {
+            Log.d(TAG, "Json fetching task started");
+        }
+
+        private String nextNullOrString(JsonReader newsJsonReader) throws IOException {
+            String value = null;
+            try {
+                newsJsonReader.nextNull();
+            } catch (IllegalStateException e) {
+                value = newsJsonReader.nextString();
+            }
+            return value;
+        }
+
+        private void postTitle(final String title) {
+            m_uiHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    // ignore results of a replaced load
+                    if (m_task != FeedTask.this) {
+                        return;
+                    }
+                    m_title = title;
+                    if (m_listener != null) {
+                        m_listener.onTitle(title);
+                    }
+                }
+            });
+        }
+
+        private void postItem(final FunnyFactsItem item) {
+            m_uiHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    // ignore results of a replaced load
+                    if (m_task != FeedTask.this) {
+                        return;
+                    }
+                    m_items.add(item);
+                    if (m_listener != null) {
+                        m_listener.onItem(item);
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            try {
+                final URL url = new URL(m_url);
+                JsonReader jsonReader = null;
+                try {
+                    InputStreamReader content = new InputStreamReader(url.openStream(), "ISO-8859-1");
+
+                    // start reading content
+                    jsonReader = new JsonReader(content);
+                    jsonReader.beginObject();
+                    // read title field
+                    if (jsonReader.nextName().equals("title")) {
+                        postTitle(jsonReader.nextString());
+                        // read rows field as array
+                        if (jsonReader.nextName().equals("rows")) {
+                            jsonReader.beginArray();
+                            do {
+                                // read next row object
+                                try {
+                                    jsonReader.beginObject();
+                                } catch (IllegalStateException e) {
+                                    // no more row objects leave loop
+                                    break;
+                                }
+                                final FunnyFactsItem item = new FunnyFactsItem();
+                                // read title field. May be null!
+                                if (jsonReader.nextName().equals("title")) {
+                                    item.title = nextNullOrString(jsonReader);
+                                    // read description field. May be null!
+                                    if (jsonReader.nextName().equals("description")) {
+                                        item.description = nextNullOrString(jsonReader);
+                                        // read imageHref field. May be null!
+                                        if (jsonReader.nextName().equals("imageHref")) {
+                                            item.imageUrl = nextNullOrString(jsonReader);
+                                        }
+                                    }
+                                }
+                                jsonReader.endObject();
+                                // add non empty items to the model
+                                if (item.title != null || item.description != null || item.imageUrl != null) {
+                                    postItem(item);
+                                }
+                            } while (true);
+                            jsonReader.endArray();
+                        }
+                    }
+                    jsonReader.endObject();
+                } catch (UnknownHostException uhe) {
+                    return R.string.no_server;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return R.string.no_data;
+                } finally {
+                    if (jsonReader != null) {
+                        try {
+                            jsonReader.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            } catch (MalformedURLException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Integer result) {
+            Log.d(TAG, "Json fetching task finished");
+            // posted rows were queued before this so the result is complete
+            m_finished = true;
+            m_finishedTime = SystemClock.elapsedRealtime();
+            m_error = result;
+            if (m_listener != null) {
+                consume();
+            }
+        }
+    }
+}
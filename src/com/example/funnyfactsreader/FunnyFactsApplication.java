@@ -0,0 +1,72 @@
+package com.example.funnyfactsreader;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * FunnyFactsApplication
+ * 
+ * Owns the process scoped resources: starts the feed load as soon as the
+ * process starts, in parallel with the Activity setup, and releases the
+ * downloads when the process is trimmed.
+ * 
+ * @author eyali
+ * 
+ */
+public class FunnyFactsApplication extends Application {
+
+    protected static final String TAG = "FunnyFactsApplication";
+
+    // set to false to measure the cold start without the early feed load
+    protected static final boolean EARLY_FEED_LOAD = true;
+
+    private static long s_startTime = 0;
+
+    @Override
+    protected void attachBaseContext(Context base) {
+        // earliest point of the process reached by application code
+        s_startTime = SystemClock.elapsedRealtime();
+        super.attachBaseContext(base);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // start the feed load early if connected, otherwise the Activity reports the missing connection
+        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = connMgr.getActiveNetworkInfo();
+        if (EARLY_FEED_LOAD && info != null && info.isConnected()) {
+            FeedLoader.getInstance(this).load();
+        }
+    }
+
+    /**
+     * takeColdStartTime - get the process start time for the first Activity
+     * of a cold process to measure its start
+     * 
+     * @return the start time in elapsed realtime milliseconds, or 0 if already
+     *         taken by a previous Activity
+     */
+    public static long takeColdStartTime() {
+        final long startTime = s_startTime;
+        s_startTime = 0;
+        return startTime;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // release the download engine once the process is in the background and memory is getting low
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            Log.d(TAG, "Trim memory level " + level + ", shutting down downloads");
+            DownloadEngine.shutdown();
+        }
+        super.onTrimMemory(level);
+    }
+
+}
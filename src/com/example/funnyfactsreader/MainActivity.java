@@ -1,11 +1,5 @@
 package com.example.funnyfactsreader;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.UnknownHostException;
-
 import android.app.AlertDialog;
 import android.app.ListActivity;
 import android.content.Context;
@@ -13,13 +7,13 @@ import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.util.JsonReader;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 
 /**
  * MainActivity
@@ -30,14 +24,16 @@ import android.view.View;
  * @author eyali
  * 
  */
-public class MainActivity extends ListActivity {
+public class MainActivity extends ListActivity implements OnFeedLoad {
 
     protected static final String TAG = "FunnyFactsReader";
 
     private FunnyFactsItemAdapter m_adapter = null;
     private AlertDialog.Builder m_errorDialogBuilder = null;
-    private AsyncTask<Void, Void, Integer> m_task = null;
+    private FeedLoader m_loader = null;
+    private boolean m_attached = false;
     private ConnectivityManager m_connMgr = null;
+    private OnPreDrawListener m_firstRowListener = null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,6 +42,45 @@ public class MainActivity extends ListActivity {
         m_adapter = new FunnyFactsItemAdapter(this, R.layout.list_item);
         setListAdapter(m_adapter);
         m_errorDialogBuilder = new AlertDialog.Builder(this);
+        m_loader = FeedLoader.getInstance(this);
+
+        // measure the cold start to the first drawn row for the first Activity of the process
+        final long coldStartTime = FunnyFactsApplication.takeColdStartTime();
+        if (coldStartTime != 0) {
+            measureFirstRow(coldStartTime);
+        }
+    }
+
+    /**
+     * measureFirstRow - log the time from the given start time to the first
+     * draw of the ListView with a row
+     * 
+     * @param startTime
+     *            - the start time in elapsed realtime milliseconds
+     */
+    private void measureFirstRow(final long startTime) {
+        m_firstRowListener = new OnPreDrawListener() {
+
+            @Override
+            public boolean onPreDraw() {
+                if (getListView().getChildCount() > 0) {
+                    Log.d(TAG, "Cold start to first drawn row: " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                    stopFirstRowMeasure();
+                }
+                return true;
+            }
+        };
+        getListView().getViewTreeObserver().addOnPreDrawListener(m_firstRowListener);
+    }
+
+    /**
+     * stopFirstRowMeasure - stop measuring the first drawn row if not done yet
+     */
+    private void stopFirstRowMeasure() {
+        if (m_firstRowListener != null) {
+            getListView().getViewTreeObserver().removeOnPreDrawListener(m_firstRowListener);
+            m_firstRowListener = null;
+        }
     }
 
     @Override
@@ -55,9 +90,13 @@ public class MainActivity extends ListActivity {
             m_connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
         }
 
-        // if there is no fetching task create one and run it
-        if (m_task == null) {
-            fetchJson();
+        // attach to the feed load started early with the process if any, otherwise start one
+        if (!m_attached) {
+            if (m_loader.attach(this)) {
+                m_attached = true;
+            } else {
+                fetchJson();
+            }
         }
         // start image downloads
         if (m_adapter != null) {
@@ -69,6 +108,8 @@ public class MainActivity extends ListActivity {
 
     @Override
     protected void onStop() {
+        // a first row shown only after returning to the Activity is no cold start
+        stopFirstRowMeasure();
         // stop image downloads
         if (m_adapter != null) {
             m_adapter.stopDownloads();
@@ -79,10 +120,11 @@ public class MainActivity extends ListActivity {
 
     @Override
     protected void onDestroy() {
-        // if there is a fetching task release it
-        if (m_task != null) {
-            m_task.cancel(true);
-            m_task = null;
+        stopFirstRowMeasure();
+        // detach from the feed loader
+        if (m_loader != null) {
+            m_loader.detach(this);
+            m_loader = null;
         }
         // release adapter
         if (m_adapter != null)
@@ -123,142 +165,49 @@ public class MainActivity extends ListActivity {
             return;
         }
 
-        // if there is already a task running cancel it
-        if (m_task != null) {
-            m_task.cancel(true);
-        }
-        // create and execute new fetching task
-        m_task = new AsyncTask<Void, Void, Integer>() {
-
-            @Override
-            protected void onPreExecute() {
-                Log.d(TAG, "Json fetching task started");
-            }
-
-            private String nextNullOrString(JsonReader newsJsonReader) throws IOException {
-                String value = null;
-                try {
-                    newsJsonReader.nextNull();
-                } catch (IllegalStateException e) {
-                    value = newsJsonReader.nextString();
-                }
-                return value;
-            }
-
-            @Override
-            protected Integer doInBackground(Void... params) {
-                try {
-                    final URL url = new URL(getString(R.string.json_url));
-                    JsonReader jsonReader = null;
-                    try {
-                        InputStreamReader content = new InputStreamReader(url.openStream(), "ISO-8859-1");
-
-                        // start reading content
-                        jsonReader = new JsonReader(content);
-                        jsonReader.beginObject();
-                        // read title field
-                        if (jsonReader.nextName().equals("title")) {
-                            final String title = jsonReader.nextString();
-                            runOnUiThread(new Runnable() {
-
-                                @Override
-                                public void run() {
-                                    // if exist set ActionBar title to read string
-                                    if (getActionBar() != null) {
-                                        getActionBar().setTitle(title);
-                                    }
-                                }
-                            });
-                            // read rows field as array
-                            if (jsonReader.nextName().equals("rows")) {
-                                jsonReader.beginArray();
-                                do {
-                                    // read next row object
-                                    try {
-                                        jsonReader.beginObject();
-                                    } catch (IllegalStateException e) {
-                                        // no more row objects leave loop
-                                        break;
-                                    }
-                                    final FunnyFactsItem item = new FunnyFactsItem();
-                                    // read title field. May be null!
-                                    if (jsonReader.nextName().equals("title")) {
-                                        item.title = nextNullOrString(jsonReader);
-                                        // read description field. May be null!
-                                        if (jsonReader.nextName().equals("description")) {
-                                            item.description = nextNullOrString(jsonReader);
-                                            // read imageHref field. May be null!
-                                            if (jsonReader.nextName().equals("imageHref")) {
-                                                item.imageUrl = nextNullOrString(jsonReader);
-                                            }
-                                        }
-                                    }
-                                    jsonReader.endObject();
-                                    // add non empty items to the model and notify renderer
-                                    if (item.title != null || item.description != null || item.imageUrl != null) {
-                                        runOnUiThread(new Runnable() {
+        // start a fresh load and attach to it
+        m_loader.load();
+        m_attached = m_loader.attach(this);
+    }
 
-                                            @Override
-                                            public void run() {
-                                                m_adapter.add(item);
-                                                m_adapter.notifyDataSetChanged();
-                                            }
-                                        });
-                                    }
-                                } while (true);
-                                jsonReader.endArray();
-                            }
-                        }
-                        jsonReader.endObject();
-                    } catch (UnknownHostException uhe) {
-                        return R.string.no_server;
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return R.string.no_data;
-                    } finally {
-                        if (jsonReader != null) {
-                            try {
-                                jsonReader.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                } catch (MalformedURLException e) {
-                    e.printStackTrace();
-                }
-                return null;
-            }
+    @Override
+    public void onTitle(String title) {
+        // if exist set ActionBar title to read string
+        if (getActionBar() != null) {
+            getActionBar().setTitle(title);
+        }
+    }
 
-            @Override
-            protected void onPostExecute(Integer result) {
-                Log.d(TAG, "Json fetching task finished");
-                if (result != null) {
-                    m_errorDialogBuilder.setTitle(result).setNeutralButton(R.string.action_refresh, new OnClickListener() {
+    @Override
+    public void onItem(FunnyFactsItem item) {
+        // add item to the model and notify renderer
+        m_adapter.add(item);
+        m_adapter.notifyDataSetChanged();
+    }
 
-                        @Override
-                        public void onClick(DialogInterface dialog, int which) {
-                            refresh();
-                        }
-                    });
-                    runOnUiThread(new Runnable() {
+    @Override
+    public void onFinished(Integer error) {
+        if (error != null) {
+            // a first row shown only after a later refresh is no cold start
+            stopFirstRowMeasure();
+            m_errorDialogBuilder.setTitle(error).setNeutralButton(R.string.action_refresh, new OnClickListener() {
 
-                        @Override
-                        public void run() {
-                            m_errorDialogBuilder.show();
-                            getListView().getEmptyView().setVisibility(View.INVISIBLE);
-                        }
-                    });
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    refresh();
                 }
-            }
-        }.execute();
+            });
+            m_errorDialogBuilder.show();
+            getListView().getEmptyView().setVisibility(View.INVISIBLE);
+        }
     }
 
     /**
      * refresh - clear and re-fetch the data and images
      */
     public void refresh() {
-        m_adapter.stopDownloads();
+        // a first row shown only after a refresh is no cold start
+        stopFirstRowMeasure();
         m_adapter.clear();
         m_adapter.notifyDataSetChanged();
         runOnUiThread(new Runnable() {
@@ -269,7 +218,6 @@ public class MainActivity extends ListActivity {
                 fetchJson();
             }
         });
-        m_adapter.startDownloads();
     }
 
     @Override
@@ -0,0 +1,38 @@
+package com.example.funnyfactsreader;
+
+/**
+ * OnFeedLoad
+ * 
+ * Provides callbacks to attach to the FeedLoader. All callbacks are called on
+ * the UI thread.
+ * 
+ * @author eyali
+ * 
+ */
+public interface OnFeedLoad {
+
+    /**
+     * onTitle - called when the feed title was read
+     * 
+     * @param title
+     *            - the feed title
+     */
+    void onTitle(String title);
+
+    /**
+     * onItem - called for each non empty row read from the feed
+     * 
+     * @param item
+     *            - the read row
+     */
+    void onItem(FunnyFactsItem item);
+
+    /**
+     * onFinished - called when the feed load finished
+     * 
+     * @param error
+     *            - string resource id of the error or null on success
+     */
+    void onFinished(Integer error);
+
+}